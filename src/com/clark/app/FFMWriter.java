@@ -0,0 +1,391 @@
+package com.clark.app;
+
+import org.stringtemplate.v4.ST;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 生成 JDK 22+ 的 Foreign Function & Memory (java.lang.foreign) 绑定，作为 JNI 之外的另一条调用路径。
+ * <p/>
+ * 只处理通过 -ffmclass 前缀选中的类，并且只处理其中参数和返回值都是基本类型、非私有的静态 native 方法，
+ * 所在的类还必须能被同包的胶水类访问：C 入口函数去掉了 JNIEnv* 和 jclass，命名为 FFM_ 加上按 JNI 规则完整转义的
+ * 类名和方法名；同时在 ffm_entry.c 里生成同名 Java_ 函数作为跳板转发到 FFM_ 函数，这样 RegisterNatives 和 FFM
+ * 调用的是同一份实现。生成的 Java_ 函数取代手写的版本，选中类的这些方法只需要实现 FFM_ 函数；
+ * 其它方法仍然只走 JNIWriter 生成的 RegisterNatives。
+ * <p/>
+ * 胶水类在静态初始化时先初始化原始类，让其中的 System.loadLibrary 先执行，再通过 loaderLookup 查找符号；
+ * 找不到符号时回退到原始的 JNI 方法。胶水类只能在 JDK 22+ 上加载，更低版本的运行时上由调用方自行选择 JNI。
+ */
+public class FFMWriter {
+    private static final String AVAILABLE_METHOD = "ffmAvailable";
+
+    private static final HashMap<String, String> javaTypeMap = new HashMap<String, String>();
+    private static final HashMap<String, String> layoutMap = new HashMap<String, String>();
+
+    static {
+        javaTypeMap.put("jboolean", "boolean");
+        javaTypeMap.put("jchar", "char");
+        javaTypeMap.put("jbyte", "byte");
+        javaTypeMap.put("jshort", "short");
+        javaTypeMap.put("jint", "int");
+        javaTypeMap.put("jlong", "long");
+        javaTypeMap.put("jfloat", "float");
+        javaTypeMap.put("jdouble", "double");
+        javaTypeMap.put("void", "void");
+
+        layoutMap.put("jboolean", "ValueLayout.JAVA_BOOLEAN");
+        layoutMap.put("jchar", "ValueLayout.JAVA_CHAR");
+        layoutMap.put("jbyte", "ValueLayout.JAVA_BYTE");
+        layoutMap.put("jshort", "ValueLayout.JAVA_SHORT");
+        layoutMap.put("jint", "ValueLayout.JAVA_INT");
+        layoutMap.put("jlong", "ValueLayout.JAVA_LONG");
+        layoutMap.put("jfloat", "ValueLayout.JAVA_FLOAT");
+        layoutMap.put("jdouble", "ValueLayout.JAVA_DOUBLE");
+    }
+
+    private List<JavaClass> javaClasses;
+    private HashSet<String> ffmClassesPre = new HashSet<String>();
+    private boolean isCpp;
+    private boolean isCritical;
+    private File outputDir;
+
+    private Map<JavaClass, List<JNIMethod>> ffmMethods = new LinkedHashMap<JavaClass, List<JNIMethod>>();
+
+    public FFMWriter(List<JavaClass> javaClasses, String[] ffmClasses, boolean isCpp, boolean isCritical,
+                     File outputDir) {
+        this.javaClasses = javaClasses;
+        this.isCpp = isCpp;
+        this.isCritical = isCritical;
+        this.outputDir = outputDir;
+
+        if (ffmClasses != null) {
+            for (String s : ffmClasses) {
+                ffmClassesPre.add(s.replace('.', '/'));
+            }
+        }
+    }
+
+    public void render() throws IOException {
+        ffmMethods.clear();
+        for (JavaClass aClass : javaClasses) {
+            final List<JNIMethod> methods = getFFMMethods(aClass);
+            if (methods.size() > 0) {
+                ffmMethods.put(aClass, methods);
+            }
+        }
+
+        // 先检查胶水类重名，避免写出一半文件后才失败
+        HashMap<String, JavaClass> glueNames = new HashMap<String, JavaClass>();
+        for (JavaClass aClass : ffmMethods.keySet()) {
+            final JavaClass other = glueNames.put(getGlueFileName(aClass), aClass);
+            if (other != null) {
+                throw new IOException("FFM glue class name clash: [" + other.javaName + "] and ["
+                        + aClass.javaName + "]");
+            }
+        }
+
+        File header = new File(outputDir, "ffm_entry.h");
+        ST st = new ST(JNIWriter.newStringTemplate("ffm_entry.st"));
+        st.add("functionDeclares", new FunctionDeclares());
+        st.write(header, new MyStErrorListener());
+
+        File source = new File(outputDir, isCpp ? "ffm_entry.cpp" : "ffm_entry.c");
+        st = new ST(JNIWriter.newStringTemplate("ffm_trampoline.st"));
+        st.add("trampolines", new Trampolines());
+        st.write(source, new MyStErrorListener());
+
+        for (Map.Entry<JavaClass, List<JNIMethod>> entry : ffmMethods.entrySet()) {
+            renderGlueClass(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void renderGlueClass(JavaClass aClass, List<JNIMethod> methods) throws IOException {
+        final String javaName = aClass.javaName;
+        final int slash = javaName.lastIndexOf('/');
+        final String packagePath = slash < 0 ? "" : javaName.substring(0, slash);
+        final String glueName = getGlueName(aClass);
+
+        final File dir = new File(new File(outputDir, "java"), packagePath);
+        dir.mkdirs();
+        if (!dir.isDirectory()) {
+            throw new IOException("Can not create directory [" + dir.getAbsolutePath() + "]");
+        }
+
+        ST st = new ST(JNIWriter.newStringTemplate("ffm_glue.st"));
+        if (packagePath.length() > 0) {
+            st.add("package", packagePath.replace('/', '.'));
+        }
+        st.add("public", aClass.isPublic);
+        st.add("glue_name", glueName);
+        st.add("binary_name", javaName.replace('/', '.'));
+        st.add("critical", isCritical);
+        st.add("available_method", AVAILABLE_METHOD);
+        st.add("handles", new HandleDeclares(methods));
+        st.add("available", new AvailableExpression(methods));
+        st.add("methods", new GlueMethods(aClass, methods));
+        st.write(new File(dir, glueName + ".java"), new MyStErrorListener());
+    }
+
+    private static String getGlueName(JavaClass aClass) {
+        final int slash = aClass.javaName.lastIndexOf('/');
+        return aClass.sourceName.substring(slash + 1).replace('.', '_') + "FFM";
+    }
+
+    private static String getGlueFileName(JavaClass aClass) {
+        final int slash = aClass.javaName.lastIndexOf('/');
+        return aClass.javaName.substring(0, slash + 1) + getGlueName(aClass);
+    }
+
+    private List<JNIMethod> getFFMMethods(JavaClass aClass) {
+        List<JNIMethod> methods = new LinkedList<JNIMethod>();
+        if (!isFFMClass(aClass)) {
+            return methods;
+        }
+        for (JNIMethod m : aClass.jniMethods) {
+            if (isFFMCompatible(m)) {
+                methods.add(m);
+            }
+        }
+        return methods;
+    }
+
+    private boolean isFFMClass(JavaClass aClass) {
+        // 局部类、匿名类以及私有类在胶水类里无法引用，无法回退到 JNI
+        if (aClass.sourceName == null || aClass.isPrivate) {
+            return false;
+        }
+        for (String pre : ffmClassesPre) {
+            if (aClass.javaName.startsWith(pre)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isFFMCompatible(JNIMethod m) {
+        // 实例方法需要 jobject，引用类型需要 JNIEnv 才能访问，二者都留给 JNI
+        if (!m.isStatic || !javaTypeMap.containsKey(m.nativeReturnName)) {
+            return false;
+        }
+        // 私有方法不能在胶水类里公开，也无法回退调用
+        if (m.isPrivate) {
+            return false;
+        }
+        // 与胶水类的 ffmAvailable() 冲突
+        if (AVAILABLE_METHOD.equals(m.javaName) && m.nativeParamNames.size() == 0) {
+            return false;
+        }
+        for (String p : m.nativeParamNames) {
+            if (!layoutMap.containsKey(p)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String join(List<String> list) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : list) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    // 生成 "类型 p0, 类型 p1" 形式的参数列表
+    private static String joinParams(List<String> types) {
+        List<String> list = new LinkedList<String>();
+        for (String p : types) {
+            list.add(p + " p" + list.size());
+        }
+        return join(list);
+    }
+
+    // 生成 "p0, p1" 形式的实参列表
+    private static String joinArgs(List<String> types) {
+        List<String> list = new LinkedList<String>();
+        for (int i = 0; i < types.size(); i++) {
+            list.add("p" + i);
+        }
+        return join(list);
+    }
+
+    private static List<String> mapTypes(List<String> nativeParamNames, Map<String, String> typeMap) {
+        List<String> list = new LinkedList<String>();
+        for (String p : nativeParamNames) {
+            list.add(typeMap.get(p));
+        }
+        return list;
+    }
+
+    private static String getModifier(JNIMethod m) {
+        if (m.isPublic) {
+            return "public ";
+        }
+        if (m.isProtected) {
+            return "protected ";
+        }
+        return "";
+    }
+
+    private abstract class ClassBlocks {
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<JavaClass, List<JNIMethod>> entry : ffmMethods.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append("\n\n");
+                }
+                sb.append("/********** ").append(entry.getKey().javaName).append(" **********/");
+                sb.append(printClassBlock(entry.getValue()));
+            }
+            return sb.toString();
+        }
+
+        protected abstract String printClassBlock(List<JNIMethod> methods);
+    }
+
+    private class Trampolines extends ClassBlocks {
+        @Override
+        protected String printClassBlock(List<JNIMethod> methods) {
+            StringBuilder sb = new StringBuilder();
+            for (JNIMethod m : methods) {
+                sb.append("\n\n");
+                if (isCpp) {
+                    sb.append("extern \"C\" ");
+                }
+                sb.append(m.nativeReturnName);
+                sb.append(" ");
+                sb.append(m.jniFuncName);
+                sb.append("(JNIEnv* env, jclass cls");
+                if (m.nativeParamNames.size() > 0) {
+                    sb.append(", ").append(joinParams(m.nativeParamNames));
+                }
+                sb.append(")\n{\n    ");
+                if (!"void".equals(m.nativeReturnName)) {
+                    sb.append("return ");
+                }
+                sb.append(m.ffmFuncName);
+                sb.append("(").append(joinArgs(m.nativeParamNames)).append(");\n}");
+            }
+            return sb.toString();
+        }
+    }
+
+    private class FunctionDeclares extends ClassBlocks {
+        @Override
+        protected String printClassBlock(List<JNIMethod> methods) {
+            StringBuilder sb = new StringBuilder();
+            for (JNIMethod m : methods) {
+                sb.append("\n");
+                sb.append("JNIEXPORT ");
+                sb.append(m.nativeReturnName);
+                sb.append(" ");
+                sb.append(m.ffmFuncName);
+                sb.append("(");
+                sb.append(m.nativeParamNames.size() > 0 ? join(m.nativeParamNames) : "void");
+                sb.append(");");
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class HandleDeclares {
+        private List<JNIMethod> methods;
+
+        private HandleDeclares(List<JNIMethod> methods) {
+            this.methods = methods;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (JNIMethod m : methods) {
+                if (sb.length() > 0) {
+                    sb.append("\n");
+                }
+                sb.append("private static final MethodHandle ").append(m.ffmFuncName);
+                sb.append(" = downcall(\"").append(m.ffmFuncName).append("\",\n        ");
+                final List<String> layouts = mapTypes(m.nativeParamNames, layoutMap);
+                if ("void".equals(m.nativeReturnName)) {
+                    sb.append("FunctionDescriptor.ofVoid(");
+                } else {
+                    sb.append("FunctionDescriptor.of(");
+                    layouts.add(0, layoutMap.get(m.nativeReturnName));
+                }
+                sb.append(join(layouts)).append("));");
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class AvailableExpression {
+        private List<JNIMethod> methods;
+
+        private AvailableExpression(List<JNIMethod> methods) {
+            this.methods = methods;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (JNIMethod m : methods) {
+                if (sb.length() > 0) {
+                    sb.append("\n                && ");
+                }
+                sb.append(m.ffmFuncName).append(" != null");
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class GlueMethods {
+        private JavaClass aClass;
+        private List<JNIMethod> methods;
+
+        private GlueMethods(JavaClass aClass, List<JNIMethod> methods) {
+            this.aClass = aClass;
+            this.methods = methods;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (JNIMethod m : methods) {
+                if (sb.length() > 0) {
+                    sb.append("\n\n");
+                }
+                final String args = joinArgs(m.nativeParamNames);
+                final String fallback = aClass.sourceName + "." + m.javaName + "(" + args + ");";
+                final String handle = m.ffmFuncName;
+                final boolean hasReturn = !"void".equals(m.nativeReturnName);
+                final String returnType = javaTypeMap.get(m.nativeReturnName);
+
+                final ST st = new ST(JNIWriter.newStringTemplate("ffm_method.st"));
+                st.add("modifier", getModifier(m));
+                st.add("return_type", returnType);
+                st.add("name", m.javaName);
+                st.add("params", joinParams(mapTypes(m.nativeParamNames, javaTypeMap)));
+                st.add("handle", handle);
+                if (hasReturn) {
+                    st.add("fallback", "return " + fallback);
+                    st.add("invoke", "return (" + returnType + ") " + handle + ".invokeExact(" + args + ");");
+                } else {
+                    st.add("fallback", fallback + "\nreturn;");
+                    st.add("invoke", handle + ".invokeExact(" + args + ");");
+                }
+                sb.append(st.render());
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -27,6 +27,7 @@ public class JNICollector {
 
     private List<JavaClass> javaClasses = new LinkedList<JavaClass>();
     private HashSet<String> ignoreClassesPre = new HashSet<String>();
+    private HashMap<String, Integer> classAccess = new HashMap<String, Integer>();
 
     public JNICollector(List<File> jarFiles, List<File> classFiles, String[] ignoreClasses) {
         this.jarFiles = jarFiles;
@@ -42,13 +43,21 @@ public class JNICollector {
     public void process() throws IOException {
         if (jarFiles != null) {
             for (File zipFile : jarFiles) {
-                processZipFile(javaClasses, zipFile, ignoreClassesPre);
+                processZipFile(javaClasses, zipFile, ignoreClassesPre, classAccess);
             }
         }
 
         if (classFiles != null) {
             for (File f : classFiles) {
-                processClassFile(javaClasses, new FileInputStream(f), ignoreClassesPre);
+                processClassFile(javaClasses, new FileInputStream(f), ignoreClassesPre, classAccess);
+            }
+        }
+
+        // 嵌套类的 InnerClasses 属性里没有最外层类的访问标志，需要等所有类都扫描完再确定
+        for (JavaClass javaClass : javaClasses) {
+            final Integer access = classAccess.get(javaClass.topLevelName);
+            if (access == null || (Opcodes.ACC_PUBLIC & access) == 0) {
+                javaClass.isPublic = false;
             }
         }
     }
@@ -57,7 +66,8 @@ public class JNICollector {
         return javaClasses;
     }
 
-    private static void processZipFile(List<JavaClass> javaClasses, File zipFile, Set<String> ignoreClassesPre) throws IOException {
+    private static void processZipFile(List<JavaClass> javaClasses, File zipFile, Set<String> ignoreClassesPre,
+                                       HashMap<String, Integer> classAccess) throws IOException {
         ZipFile zip = new ZipFile(zipFile);
         try {
             final Enumeration<? extends ZipEntry> entries = zip.entries();
@@ -65,7 +75,7 @@ public class JNICollector {
                 final ZipEntry zipEntry = entries.nextElement();
                 final String name = zipEntry.getName();
                 if (name.endsWith(".class")) {
-                    processClassFile(javaClasses, zip.getInputStream(zipEntry), ignoreClassesPre);
+                    processClassFile(javaClasses, zip.getInputStream(zipEntry), ignoreClassesPre, classAccess);
                 }
             }
         } finally {
@@ -73,12 +83,13 @@ public class JNICollector {
         }
     }
 
-    private static void processClassFile(List<JavaClass> javaClasses, InputStream inputStream, Set<String> ignoreClassesPre) throws IOException {
+    private static void processClassFile(List<JavaClass> javaClasses, InputStream inputStream, Set<String> ignoreClassesPre,
+                                         HashMap<String, Integer> classAccess) throws IOException {
         if (inputStream == null) return;
 
         try {
             ClassReader classReader = new ClassReader(inputStream);
-            final MyClassVisitor classVisitor = new MyClassVisitor(javaClasses, ignoreClassesPre);
+            final MyClassVisitor classVisitor = new MyClassVisitor(javaClasses, ignoreClassesPre, classAccess);
             classReader.accept(classVisitor, ClassReader.SKIP_CODE
                     | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
         } finally {
@@ -97,18 +108,24 @@ final class MyClassVisitor extends ClassVisitor {
     private HashSet<String> methodNames = new HashSet<String>();
     private HashSet<String> overLoadMethodNames = new HashSet<String>();
 
+    private HashMap<String, InnerClass> innerClasses = new HashMap<String, InnerClass>();
+
     private Set<String> ignoreClassesPre;
+    private HashMap<String, Integer> classAccess;
     private boolean ignore;
 
-    MyClassVisitor(List<JavaClass> javaClasses, Set<String> ignoreClassesPre) {
+    MyClassVisitor(List<JavaClass> javaClasses, Set<String> ignoreClassesPre, HashMap<String, Integer> classAccess) {
         super(Opcodes.ASM5);
         this.javaClasses = javaClasses;
         this.ignoreClassesPre = ignoreClassesPre;
+        this.classAccess = classAccess;
     }
 
     @Override
     public void visit(int i, int i2, String s, String s2, String s3, String[] strings) {
         javaClass.javaName = s;
+        javaClass.isPublic = (Opcodes.ACC_PUBLIC & i2) != 0;
+        classAccess.put(s, i2);
         for (String pre : ignoreClassesPre) {
             if (s.startsWith(pre)) {
                 ignore = true;
@@ -125,14 +142,28 @@ final class MyClassVisitor extends ClassVisitor {
             for (JNIMethod m : jniMethods) {
                 // 计算 JNI 函数的名字
                 getJniFunctionName(javaClass.javaName, m);
+                // 计算 FFM 函数的名字
+                getFfmFunctionName(javaClass.javaName, m);
                 // 计算 JNI 参数列表以及返回值类型
                 NativeType.getNativeNames(m);
             }
+            // 计算源码中的类名以及是否被 private 类包含、是否为 public 类
+            ensureSourceName(javaClass, innerClasses);
             javaClass.jniMethods = jniMethods;
             javaClasses.add(javaClass);
         }
     }
 
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        InnerClass innerClass = new InnerClass();
+        innerClass.outerName = outerName;
+        innerClass.innerName = innerName;
+        innerClass.isPrivate = (Opcodes.ACC_PRIVATE & access) != 0;
+        innerClass.isPublic = (Opcodes.ACC_PUBLIC & access) != 0;
+        innerClasses.put(name, innerClass);
+    }
+
     @Override
     public MethodVisitor visitMethod(int i, String s, String s2, String s3, String[] strings) {
         if (!ignore && (Opcodes.ACC_NATIVE & i) != 0) {
@@ -140,6 +171,9 @@ final class MyClassVisitor extends ClassVisitor {
             method.javaName = s;
             method.signature = s2;
             method.isStatic = (Opcodes.ACC_STATIC & i) != 0;
+            method.isPrivate = (Opcodes.ACC_PRIVATE & i) != 0;
+            method.isPublic = (Opcodes.ACC_PUBLIC & i) != 0;
+            method.isProtected = (Opcodes.ACC_PROTECTED & i) != 0;
             if (methodNames.contains(s)) {
                 overLoadMethodNames.add(s);  // 该名字的方法是重载方法
             } else {
@@ -160,24 +194,59 @@ final class MyClassVisitor extends ClassVisitor {
         }
     }
 
+    private static void ensureSourceName(JavaClass javaClass, HashMap<String, InnerClass> innerClasses) {
+        StringBuilder builder = new StringBuilder();
+        String name = javaClass.javaName;
+        InnerClass innerClass;
+        // 嵌套类的 InnerClasses 属性包含了所有外部类，沿着外部类一路向上拼接
+        while ((innerClass = innerClasses.get(name)) != null) {
+            if (innerClass.outerName == null || innerClass.innerName == null) {
+                // 局部类和匿名类在源码中无法引用
+                javaClass.sourceName = null;
+                return;
+            }
+            if (innerClass.isPrivate) {
+                javaClass.isPrivate = true;
+            }
+            if (!innerClass.isPublic) {
+                javaClass.isPublic = false;
+            }
+            builder.insert(0, innerClass.innerName).insert(0, '.');
+            name = innerClass.outerName;
+        }
+        builder.insert(0, name.replace('/', '.'));
+        javaClass.sourceName = builder.toString();
+        javaClass.topLevelName = name;
+    }
+
     private static String getJniFunctionName(String className, JNIMethod method) {
-        StringBuilder builder = new StringBuilder("Java_");
-        builder.append(convertJNIName(className));
+        method.jniFuncName = getFunctionName("Java_", className, method, false);
+        return method.jniFuncName;
+    }
+
+    // FFM 按名字查找符号，必须完整转义成合法的 C 标识符
+    private static String getFfmFunctionName(String className, JNIMethod method) {
+        method.ffmFuncName = getFunctionName("FFM_", className, method, true);
+        return method.ffmFuncName;
+    }
+
+    private static String getFunctionName(String prefix, String className, JNIMethod method, boolean escapeAll) {
+        StringBuilder builder = new StringBuilder(prefix);
+        builder.append(convertJNIName(className, escapeAll));
         builder.append("_");
-        builder.append(convertJNIName(method.javaName));
+        builder.append(convertJNIName(method.javaName, escapeAll));
         if (method.isOverload) {
             builder.append("__");
             String paramList = method.signature.substring(method.signature.indexOf('(') + 1,
                     method.signature.indexOf(')'));
             if (paramList.length() > 0) {
-                builder.append(convertJNIName(paramList));
+                builder.append(convertJNIName(paramList, escapeAll));
             }
         }
-        method.jniFuncName = builder.toString();
-        return method.jniFuncName;
+        return builder.toString();
     }
 
-    private static String convertJNIName(String javaName) {
+    private static String convertJNIName(String javaName, boolean escapeAll) {
         char[] javaNameChs = javaName.toCharArray();
         StringBuilder builder = new StringBuilder();
         for (char c : javaNameChs) {
@@ -199,7 +268,11 @@ final class MyClassVisitor extends ClassVisitor {
                     break;
 
                 default:
-                    builder.append(c);
+                    if (escapeAll && !((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))) {
+                        builder.append(String.format("_0%04x", (int) c));  // '$' 以及非 ASCII 字符
+                    } else {
+                        builder.append(c);
+                    }
                     break;
             }
         }
@@ -207,8 +280,19 @@ final class MyClassVisitor extends ClassVisitor {
     }
 }
 
+final class InnerClass {
+    public String outerName;
+    public String innerName;
+    public boolean isPrivate;
+    public boolean isPublic;
+}
+
 final class JavaClass {
     public String javaName;
+    public String sourceName; // 源码中的类名，局部类和匿名类为 null
+    public String topLevelName; // 最外层类的名字
+    public boolean isPrivate; // 自身或外部类是否为私有类
+    public boolean isPublic;  // 自身以及所有外部类是否都为 public 类
     public List<JNIMethod> jniMethods = new LinkedList<JNIMethod>();
 }
 
@@ -216,8 +300,12 @@ final class JNIMethod {
     public String javaName;
     public String signature;
     public String jniFuncName;
+    public String ffmFuncName;
     public boolean isOverload; // 是否为重载方法
     public boolean isStatic;   // 是否为静态方法
+    public boolean isPrivate;  // 是否为私有方法
+    public boolean isPublic;   // 是否为 public 方法
+    public boolean isProtected; // 是否为 protected 方法
 
     public List<String> nativeParamNames = new LinkedList<String>();
     public String nativeReturnName;
@@ -32,7 +32,7 @@ public class JNIWriter {
         st.write(source, new MyStErrorListener());
     }
 
-    private static String newStringTemplate(String resource) {
+    static String newStringTemplate(String resource) {
         try {
             return IOUtils.toString(JNIWriter.class.getClassLoader().getResourceAsStream(
                     "com/clark/app/" + resource));
@@ -24,12 +24,22 @@ public class Main {
         options.addOption("o", true, "Output directory");
         options.addOption("cpp", false, "Support C++ source");
         options.addOption("ignore", true, "which java class should be ignore");
+        options.addOption("ffmclass", true, "which java class should also get FFM bindings; "
+                + "its generated Java_ trampolines replace hand-written ones "
+                + "(glue classes need JDK 22+, callers pick JNI on older runtimes)");
+        options.addOption("ffmcritical", false, "Link FFM downcalls as critical (short, non-blocking calls only)");
         CommandLine cli = parser.parse(options, args);
 
         final String[] jars = cli.getOptionValues("jar");
         final String[] classes = cli.getOptionValues("class");
         final String outputDir = cli.getOptionValue("o", "jni");
         final String[] ignoreClasses = cli.getOptionValues("ignore");
+        final String[] ffmClasses = cli.getOptionValues("ffmclass");
+
+        if (cli.hasOption("ffmcritical") && ffmClasses == null) {
+            System.err.println("-ffmcritical needs -ffmclass");
+            System.exit(1);
+        }
 
         List<File> jarFiles = new LinkedList<File>();
         List<File> classFiles = new LinkedList<File>();
@@ -58,6 +68,12 @@ public class Main {
         JNIWriter writer = new JNIWriter(collector.getJavaClasses(), cli.hasOption("cpp"), dir);
         writer.render();
 
+        if (ffmClasses != null) {
+            FFMWriter ffmWriter = new FFMWriter(collector.getJavaClasses(), ffmClasses, cli.hasOption("cpp"),
+                    cli.hasOption("ffmcritical"), dir);
+            ffmWriter.render();
+        }
+
         System.out.println("Success!");
     }
 